@@ -2,4 +2,6 @@
 export JAVA_HOME=/usr/lib/jvm/jdk1.8.0_31
 export PATH=$JAVA_HOME/bin:$PATH
 
-java -Xmx1000m -Xms1000m -Dfootprint.cache=512 -cp "lib/*" it.geosolutions.footprint.FootprintExtractionTool $@
+# Additional JVM options can be provided through JAVA_OPTS, e.g.
+# JAVA_OPTS="-Dfootprint.streaming=true -Dfootprint.writer.threads=2"
+java -Xmx1000m -Xms1000m -Dfootprint.cache=512 $JAVA_OPTS -cp "lib/*" it.geosolutions.footprint.FootprintExtractionTool $@
@@ -27,14 +27,19 @@ import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.media.jai.JAI;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOCase;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.IOFileFilter;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.DataSourceException;
 import org.geotools.data.DataStoreFactorySpi;
@@ -84,6 +89,17 @@ import com.vividsolutions.jts.io.WKTWriter;
  * as well as the values of the Defaults which will be used in case of missing
  * parameter. 
  * 
+ * Multiple files can be processed through 
+ * {@link FootprintExtractionTool#generateFootprints(List, FootprintProcessingOutputBean)}
+ * which writes the outputs of a file asynchronously while the next one is being
+ * processed. See {@link FootprintWritingPipeline} for the tuning options.
+ * 
+ * Rasters larger than the heap can be processed by setting the 
+ * {@link FootprintParameter.Key#STREAMING} parameter (or the footprint.streaming
+ * system property when running the tool, e.g. through the JAVA_OPTS variable of
+ * extractfootprint.sh) so that the GeoTIFF is read and 
+ * vectorized in strips. See {@link StreamingFootprintExtractor}.
+ * 
  * @author Daniele Romagnoli, GeoSolutions SAS
  */
 public class FootprintExtractionTool {
@@ -100,6 +116,8 @@ public class FootprintExtractionTool {
     
     private static long JAI_CACHE_SIZE = 1024; 
 
+    private static final String STREAMING = "footprint.streaming";
+
     static {
         process = new FootprintExtractionProcess();
         String jaiCache = System.getProperty(JAI_CACHE);
@@ -310,11 +328,44 @@ public class FootprintExtractionTool {
             this.exceptions = new ArrayList<Exception>();
         }
 
-        public void addException(Exception e) {
+        public synchronized void addException(Exception e) {
             exceptions.add(e);
         }
     }
 
+    /**
+     * A pending write of a computed footprint geometry to its output file.
+     */
+    static class FootprintWriteRequest {
+        final WritingFormat format;
+
+        final Geometry geometry;
+
+        final File outputFile;
+
+        final CoordinateReferenceSystem crs;
+
+        FootprintWriteRequest(WritingFormat format, Geometry geometry, File outputFile,
+                CoordinateReferenceSystem crs) {
+            this.format = format;
+            this.geometry = geometry;
+            this.outputFile = outputFile;
+            this.crs = crs;
+        }
+
+        /**
+         * Write the geometry, deleting a previously existing output file.
+         * 
+         * @throws IOException
+         */
+        void write() throws IOException {
+            if (outputFile.exists()) {
+                FileUtils.deleteQuietly(outputFile);
+            }
+            format.write(geometry, outputFile, crs);
+        }
+    }
+
     /**
      * Method to generate the footprint and create a geometry file beside the input file. 
      * @param inputBean
@@ -338,7 +389,80 @@ public class FootprintExtractionTool {
 
         FootprintProcessingOutputBean output = 
             outputBean != null ? outputBean : new FootprintProcessingOutputBean();
+        List<FootprintWriteRequest> requests = extractFootprint(inputBean, output);
+        for (FootprintWriteRequest request : requests) {
+            try {
+                request.write();
+            } catch (IOException e) {
+                output.addException(e);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Method to generate the footprints of multiple input files in pipelined mode: 
+     * outputs of a file are written by a {@link FootprintWritingPipeline} while the 
+     * next file is being read and vectorized. Processing and write failures are 
+     * reported in the exceptions of the related output bean, without stopping the
+     * processing of the other files.
+     * 
+     * @param inputBeans
+     * @param outputBean an optional outputBean specifying required formats for all the files
+     * 
+     * @return the list of outputBeans, one for each inputBean, in the same order
+     */
+    public static List<FootprintProcessingOutputBean> generateFootprints(
+            List<FootprintProcessingInputBean> inputBeans, FootprintProcessingOutputBean outputBean) {
+        final List<FootprintProcessingOutputBean> outputs = new ArrayList<FootprintProcessingOutputBean>();
+        final FootprintWritingPipeline pipeline = new FootprintWritingPipeline();
+
+        // Output files already assigned to a previous input (e.g. a.tif and a.tiff)
+        final Set<File> outputFiles = new HashSet<File>();
+        try {
+            for (FootprintProcessingInputBean inputBean : inputBeans) {
+                FootprintProcessingOutputBean output = new FootprintProcessingOutputBean();
+                if (outputBean != null) {
+                    output.setPreciseFormat(outputBean.getPreciseFormat());
+                    output.setSimplifiedFormat(outputBean.getSimplifiedFormat());
+                }
+                outputs.add(output);
+                final List<FootprintWriteRequest> requests;
+                try {
+                    requests = extractFootprint(inputBean, output);
+                } catch (RuntimeException e) {
+                    // Report the failure for this file and go on with the next one
+                    output.addException(e);
+                    continue;
+                }
+                for (FootprintWriteRequest request : requests) {
+                    if (!outputFiles.add(request.outputFile.getAbsoluteFile())) {
+                        output.addException(new IOException("Output file " + request.outputFile
+                                + " is already produced by another input file"));
+                        continue;
+                    }
+                    pipeline.submit(request, output);
+                }
+            }
+        } finally {
+            pipeline.close();
+        }
+        return outputs;
+    }
+
+    /**
+     * Compute the footprint of the input file, returning the pending write requests
+     * for the precise footprint and, when available, the simplified one.
+     * Reading and processing failures are reported in the output bean.
+     * 
+     * @param inputBean
+     * @param output
+     * @return
+     */
+    static List<FootprintWriteRequest> extractFootprint(
+            FootprintProcessingInputBean inputBean, FootprintProcessingOutputBean output) {
 
+        List<FootprintWriteRequest> requests = new ArrayList<FootprintWriteRequest>(2);
         GeoTiffReader reader = null;
         FeatureIterator<SimpleFeature> iter = null;
         GridCoverage2D cov = null;
@@ -353,49 +477,51 @@ public class FootprintExtractionTool {
             final File inputFile = inputBean.getInputFile();
             final String fileName = inputFile.getCanonicalPath();
             reader = new GeoTiffReader(inputFile);
-            cov = reader.read(null);
 
             // Preparing the footprint processing parameters
             Map<String, Object> params = FootprintParameter.parseParams(inputBean.getFootprintParameters());
 
-            SimpleFeatureCollection fc = process.execute(cov,
-                    (List<Range<Integer>>) params.get(FootprintParameter.Key.EXCLUSION_RANGES),
-                    (Double) params.get(FootprintParameter.Key.THRESHOLD_AREA),
-                    (Boolean) params.get(FootprintParameter.Key.COMPUTE_SIMPLIFIED_FOOTPRINT),
-                    (Double) params.get(FootprintParameter.Key.SIMPLIFIER_FACTOR),
-                    (Boolean) params.get(FootprintParameter.Key.REMOVE_COLLINEAR),
-                    (Boolean) params.get(FootprintParameter.Key.FORCE_VALID),
-                    (ImageLoadingType) params.get(FootprintParameter.Key.LOADING_TYPE), null);
-
-            // Getting the computed features
-            iter = fc.features();
-
-            // First feature is main footprint
-            SimpleFeature feature = iter.next();
-            Geometry geometry = (Geometry) feature.getDefaultGeometry();
+            final List<Geometry> footprints = new ArrayList<Geometry>(2);
+            final CoordinateReferenceSystem crs;
+            if ((Boolean) params.get(FootprintParameter.Key.STREAMING)) {
+                // Bounded memory extraction, strip by strip
+                footprints.addAll(new StreamingFootprintExtractor(process, reader, params).extract());
+                crs = reader.getCoordinateReferenceSystem();
+            } else {
+                cov = reader.read(null);
+                SimpleFeatureCollection fc = process.execute(cov,
+                        (List<Range<Integer>>) params.get(FootprintParameter.Key.EXCLUSION_RANGES),
+                        (Double) params.get(FootprintParameter.Key.THRESHOLD_AREA),
+                        (Boolean) params.get(FootprintParameter.Key.COMPUTE_SIMPLIFIED_FOOTPRINT),
+                        (Double) params.get(FootprintParameter.Key.SIMPLIFIER_FACTOR),
+                        (Boolean) params.get(FootprintParameter.Key.REMOVE_COLLINEAR),
+                        (Boolean) params.get(FootprintParameter.Key.FORCE_VALID),
+                        (ImageLoadingType) params.get(FootprintParameter.Key.LOADING_TYPE), null);
+
+                // Getting the computed features
+                iter = fc.features();
+                while (iter.hasNext()) {
+                    footprints.add((Geometry) iter.next().getDefaultGeometry());
+                }
+                crs = cov.getCoordinateReferenceSystem();
+            }
+
+            // First geometry is main footprint
+            Geometry geometry = footprints.get(0);
             final String basePath = FilenameUtils.getFullPath(fileName);
             final String baseName = FilenameUtils.getBaseName(fileName);
             final String outputName = baseName + writingFormat.getExtension();
             File outputFile = new File(FilenameUtils.concat(basePath, outputName));
-            if (outputFile.exists()) {
-                FileUtils.deleteQuietly(outputFile);
-            }
-            CoordinateReferenceSystem crs = cov.getCoordinateReferenceSystem();
 
-            // writing the precise footprint
-            writingFormat.write(geometry, outputFile, crs);
+            // the precise footprint
+            requests.add(new FootprintWriteRequest(writingFormat, geometry, outputFile, crs));
 
-            if (iter.hasNext()) {
-                // Write simplified footprint too
-                feature = iter.next();
-                geometry = (Geometry) feature.getDefaultGeometry();
+            if (footprints.size() > 1) {
+                // simplified footprint too
+                geometry = footprints.get(1);
                 final String simplifiedOutputName = baseName + "_simplified" + simplfiedFormat.getExtension();
                 outputFile = new File(FilenameUtils.concat(basePath, simplifiedOutputName));
-                if (outputFile.exists()) {
-                    FileUtils.deleteQuietly(outputFile);
-                }
-                simplfiedFormat.write(geometry, outputFile, crs);
-
+                requests.add(new FootprintWriteRequest(simplfiedFormat, geometry, outputFile, crs));
             }
 
         } catch (DataSourceException e) {
@@ -421,7 +547,7 @@ public class FootprintExtractionTool {
                 }
             }
         }
-        return output;
+        return requests;
     }
 
     /**
@@ -458,9 +584,6 @@ public class FootprintExtractionTool {
         }
             
         //============================================================
-        FootprintProcessingInputBean inputBean = new FootprintProcessingInputBean();
-        inputBean.setInputFile(new File(filePath));
-        
         FootprintProcessingOutputBean outputBean = new FootprintProcessingOutputBean();
         outputBean.setPreciseFormat(preciseFormat);
         outputBean.setSimplifiedFormat(simplifiedFormat);
@@ -472,8 +595,39 @@ public class FootprintExtractionTool {
         parameters.put(FootprintParameter.Key.REMOVE_COLLINEAR, true);
         parameters.put(FootprintParameter.Key.SIMPLIFIER_FACTOR, 2);
         parameters.put(FootprintParameter.Key.COMPUTE_SIMPLIFIED_FOOTPRINT, true);
-        inputBean.setFootprintParameters(parameters);
+        parameters.put(FootprintParameter.Key.STREAMING, Boolean.getBoolean(STREAMING));
         //============================================================
+
+        File file = new File(filePath);
+        if (file.isDirectory()) {
+            // Multi-file run: pipeline the writes with the next extraction
+            List<FootprintProcessingInputBean> inputBeans = new ArrayList<FootprintProcessingInputBean>();
+            final IOFileFilter tiffFilter = new SuffixFileFilter(new String[] { ".tif", ".tiff" },
+                    IOCase.INSENSITIVE);
+            for (Object inputFile : FileUtils.listFiles(file, tiffFilter, null)) {
+                FootprintProcessingInputBean inputBean = new FootprintProcessingInputBean();
+                inputBean.setInputFile((File) inputFile);
+                inputBean.setFootprintParameters(new HashMap<String, Object>(parameters));
+                inputBeans.add(inputBean);
+            }
+            List<FootprintProcessingOutputBean> outputBeans = FootprintExtractionTool
+                    .generateFootprints(inputBeans, outputBean);
+            boolean failed = false;
+            for (int i = 0; i < outputBeans.size(); i++) {
+                for (Exception e : outputBeans.get(i).getExceptions()) {
+                    System.err.println(inputBeans.get(i).getInputFile() + ": " + e);
+                    failed = true;
+                }
+            }
+            if (failed) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        FootprintProcessingInputBean inputBean = new FootprintProcessingInputBean();
+        inputBean.setInputFile(file);
+        inputBean.setFootprintParameters(parameters);
       
         outputBean = FootprintExtractionTool.generateFootprint(inputBean, outputBean);
         if (outputBean.getExceptions().isEmpty()) {
@@ -36,6 +36,10 @@ public class FootprintParameter {
 
         final static String LOADING_TYPE = "loadingType";
 
+        final static String STREAMING = "streaming";
+
+        final static String STRIP_HEIGHT = "stripHeight";
+
     }
 
     /**
@@ -56,6 +60,15 @@ public class FootprintParameter {
         final static boolean FORCE_VALID = true;
 
         final static ImageLoadingType LOADING_TYPE = ImageLoadingType.getDefault();
+
+        final static boolean STREAMING = false;
+
+        /**
+         * 0 means using the smallest multiple of the tile height of the input
+         * GeoTIFF which is at least 256 rows, or 256 rows when the tile layout
+         * isn't available
+         */
+        final static int STRIP_HEIGHT = 0;
     }
 
     final static Map<String, Object> DEFAULT_PARAMS;
@@ -76,6 +89,8 @@ public class FootprintParameter {
         keySet.add(Key.REMOVE_COLLINEAR);
         keySet.add(Key.SIMPLIFIER_FACTOR);
         keySet.add(Key.THRESHOLD_AREA);
+        keySet.add(Key.STREAMING);
+        keySet.add(Key.STRIP_HEIGHT);
 
         return keySet;
     }
@@ -94,6 +109,8 @@ public class FootprintParameter {
         params.put(Key.FORCE_VALID, Default.FORCE_VALID);
         params.put(Key.LOADING_TYPE, Default.LOADING_TYPE);
         params.put(Key.SIMPLIFIER_FACTOR, Default.SIMPLIFIER_FACTOR);
+        params.put(Key.STREAMING, Default.STREAMING);
+        params.put(Key.STRIP_HEIGHT, Default.STRIP_HEIGHT);
         return params;
     }
 
@@ -123,7 +140,8 @@ public class FootprintParameter {
             // Checking boolean parameters
             if (key.equalsIgnoreCase(Key.COMPUTE_SIMPLIFIED_FOOTPRINT)
                     || key.equalsIgnoreCase(Key.FORCE_VALID)
-                    || key.equalsIgnoreCase(Key.REMOVE_COLLINEAR)) {
+                    || key.equalsIgnoreCase(Key.REMOVE_COLLINEAR)
+                    || key.equalsIgnoreCase(Key.STREAMING)) {
                 booleanCheck(updatedParams, key, needsDefaultsSet);
 
             } 
@@ -132,6 +150,10 @@ public class FootprintParameter {
                     || key.equalsIgnoreCase(Key.SIMPLIFIER_FACTOR)) {
                 doubleValueCheck(updatedParams, key, needsDefaultsSet);
             } 
+            // checking integer parameters
+            else if (key.equalsIgnoreCase(Key.STRIP_HEIGHT)) {
+                integerValueCheck(updatedParams, key, needsDefaultsSet);
+            } 
             // Checking exclusion ranges
             else if (key.equalsIgnoreCase(Key.EXCLUSION_RANGES)) {
                 Object param = updatedParams.get(key);
@@ -179,6 +201,24 @@ public class FootprintParameter {
 
     }
 
+    /**
+     * Check whether the parameters map contains the specified key and that param
+     * is an integer. In case the check fails, the key is added to the set of keys
+     * which require a default parameter value.
+     * 
+     * @param updatedParams
+     * @param key
+     * @param needsDefaultsSet
+     */
+    private static void integerValueCheck(Map<String, Object> updatedParams, String key,
+            Set<String> needsDefaultsSet) {
+        Object param = updatedParams.get(key);
+        if (param == null || !(param instanceof Integer)) {
+            needsDefaultsSet.add(key);
+        }
+
+    }
+
     /**
      * Check whether the parameters map contains the specified key and that param
      * is a boolean. In case the check fails, the key is added to the set of keys
@@ -0,0 +1,266 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.footprint;
+
+import it.geosolutions.footprint.FootprintExtractionTool.FootprintProcessingOutputBean;
+import it.geosolutions.footprint.FootprintExtractionTool.FootprintWriteRequest;
+import it.geosolutions.footprint.FootprintExtractionTool.WritingFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * A bounded asynchronous writer stage for footprint outputs.
+ *
+ * Write requests are executed by a small thread pool so that the outputs of a
+ * raster get written while the next raster is being read and vectorized.
+ * When the queue of pending writes is full, the submitting thread runs the write
+ * itself, which throttles extraction instead of piling up geometries in memory.
+ *
+ * Optionally, written files are fsync'ed in batches: once a batch has been
+ * synced, the content of its files as well as their entries in the output
+ * directories are on the storage device (the directories are synced once per
+ * batch, except on Windows where this isn't possible). Outputs not filling a
+ * whole batch are synced when the pipeline is closed. Nothing is guaranteed
+ * for outputs of a batch still being synced when the process dies.
+ *
+ * Write and sync failures are reported in the exceptions of the
+ * {@link FootprintProcessingOutputBean} associated to the request.
+ *
+ * The pipeline can be tuned through the following system properties:
+ * - footprint.writer.threads: number of writer threads (default 1)
+ * - footprint.writer.queue: max number of queued write requests (default 4)
+ * - footprint.writer.fsync: number of written outputs to be fsync'ed
+ *   together (default 0, no fsync)
+ * Missing, non numeric or out of range values fall back to the defaults.
+ */
+class FootprintWritingPipeline {
+
+    private static final String WRITER_THREADS = "footprint.writer.threads";
+
+    private static final String WRITER_QUEUE = "footprint.writer.queue";
+
+    private static final String WRITER_FSYNC = "footprint.writer.fsync";
+
+    private static final boolean IS_WINDOWS = File.separatorChar == '\\';
+
+    private static final String[] SHAPEFILE_EXTENSIONS = new String[] { "shp", "shx", "dbf",
+            "prj", "qix", "fix" };
+
+    /**
+     * An output written but not yet synced to disk
+     */
+    private static class PendingSync {
+        final FootprintWriteRequest request;
+
+        final FootprintProcessingOutputBean output;
+
+        PendingSync(FootprintWriteRequest request, FootprintProcessingOutputBean output) {
+            this.request = request;
+            this.output = output;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    private final int fsyncBatchSize;
+
+    private final List<PendingSync> pendingSyncs = new ArrayList<PendingSync>();
+
+    FootprintWritingPipeline() {
+        this(getIntProperty(WRITER_THREADS, 1, 1), getIntProperty(WRITER_QUEUE, 4, 1),
+                getIntProperty(WRITER_FSYNC, 0, 0));
+    }
+
+    FootprintWritingPipeline(int threads, int queueSize, int fsyncBatchSize) {
+        final int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.fsyncBatchSize = fsyncBatchSize;
+    }
+
+    /**
+     * Submit the provided write request. Failures will be reported to the output bean.
+     *
+     * @param request
+     * @param output
+     */
+    void submit(final FootprintWriteRequest request, final FootprintProcessingOutputBean output) {
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    request.write();
+                } catch (Exception e) {
+                    // Report any failure, no matter which thread is running the write
+                    output.addException(e);
+                    return;
+                }
+                if (fsyncBatchSize > 0) {
+                    List<PendingSync> batch = null;
+                    synchronized (pendingSyncs) {
+                        pendingSyncs.add(new PendingSync(request, output));
+                        if (pendingSyncs.size() >= fsyncBatchSize) {
+                            batch = new ArrayList<PendingSync>(pendingSyncs);
+                            pendingSyncs.clear();
+                        }
+                    }
+                    if (batch != null) {
+                        sync(batch);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for all the submitted writes to complete, syncing the last batch,
+     * and release the writer threads.
+     */
+    void close() {
+        executor.shutdown();
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // keep waiting: the output beans must reflect all the submitted writes
+                interrupted = true;
+            }
+        }
+        List<PendingSync> batch;
+        synchronized (pendingSyncs) {
+            batch = new ArrayList<PendingSync>(pendingSyncs);
+            pendingSyncs.clear();
+        }
+        sync(batch);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Force the files of the provided batch to the storage device, then force
+     * each of their parent directories once, so that the newly created entries
+     * survive a crash too.
+     *
+     * @param batch
+     */
+    private static void sync(List<PendingSync> batch) {
+        final Map<File, List<PendingSync>> directories = new LinkedHashMap<File, List<PendingSync>>();
+        for (PendingSync pending : batch) {
+            try {
+                for (File file : getWrittenFiles(pending.request)) {
+                    force(file, StandardOpenOption.WRITE);
+                }
+            } catch (IOException e) {
+                pending.output.addException(e);
+                continue;
+            }
+            final File directory = pending.request.outputFile.getAbsoluteFile().getParentFile();
+            List<PendingSync> syncs = directories.get(directory);
+            if (syncs == null) {
+                syncs = new ArrayList<PendingSync>();
+                directories.put(directory, syncs);
+            }
+            syncs.add(pending);
+        }
+
+        // Directories can't be opened for syncing on Windows
+        if (IS_WINDOWS) {
+            return;
+        }
+        for (Map.Entry<File, List<PendingSync>> entry : directories.entrySet()) {
+            try {
+                force(entry.getKey(), StandardOpenOption.READ);
+            } catch (IOException e) {
+                for (PendingSync pending : entry.getValue()) {
+                    pending.output.addException(e);
+                }
+            }
+        }
+    }
+
+    private static void force(File file, StandardOpenOption option) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), option);
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Return the files written by the provided request. A shapefile output also
+     * comes with its sidecar files.
+     *
+     * @param request
+     * @return
+     */
+    private static List<File> getWrittenFiles(FootprintWriteRequest request) {
+        final List<File> files = new ArrayList<File>();
+        if (request.format == WritingFormat.SHAPEFILE) {
+            final String basePath = FilenameUtils.removeExtension(request.outputFile.getPath());
+            for (String extension : SHAPEFILE_EXTENSIONS) {
+                File file = new File(basePath + "." + extension);
+                if (file.exists()) {
+                    files.add(file);
+                }
+            }
+        } else {
+            files.add(request.outputFile);
+        }
+        return files;
+    }
+
+    /**
+     * Return the integer value of the specified system property, falling back
+     * to the default when missing, not numeric or lower than the minimum.
+     *
+     * @param key
+     * @param defaultValue
+     * @param minValue
+     * @return
+     */
+    static int getIntProperty(String key, int defaultValue, int minValue) {
+        String value = System.getProperty(key);
+        if (value != null && !value.isEmpty()) {
+            try {
+                final int intValue = Integer.parseInt(value.trim());
+                if (intValue >= minValue) {
+                    return intValue;
+                }
+            } catch (NumberFormatException e) {
+                // use the default
+            }
+        }
+        return defaultValue;
+    }
+}
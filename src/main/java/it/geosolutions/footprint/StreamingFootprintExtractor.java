@@ -0,0 +1,463 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.footprint;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.media.jai.ImageLayout;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.process.raster.FootprintExtractionProcess;
+import org.geotools.process.raster.MarchingSquaresVectorizer.ImageLoadingType;
+import org.geotools.util.Range;
+import org.opengis.coverage.grid.GridEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.MathTransform;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateFilter;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Bounded memory footprint extraction for GeoTIFFs larger than the heap.
+ *
+ * The GeoTIFF is read in horizontal strips made of whole rows of tiles, each
+ * one overlapping the next one by a row. The {@link FootprintExtractionProcess}
+ * is run on each strip and the resulting slices are snapped to the raster grid,
+ * so that the slices of a polygon spanning several strips share the same
+ * vertices along the strip boundaries.
+ *
+ * Slices are grouped as they connect across strips. Only the groups having a
+ * slice on the bottom edge of the current strip are kept open: any other group
+ * is complete, so its slices are stitched together by a union and the resulting
+ * polygons are filtered by area and moved out of the working set. Speckles not
+ * reaching any strip edge are therefore dropped as soon as their strip has been
+ * processed. Peak memory thus depends on the strip size, on the open groups and
+ * on the retained footprint polygons, rather than on the raster size.
+ *
+ * Area filtering of polygons and holes is applied once the slices have been
+ * stitched together, since a strip may only contain part of a polygon. The
+ * simplified footprint is computed from the stitched precise footprint by a
+ * topology preserving simplification with a tolerance of the simplifier factor
+ * (2 by default) times the pixel size, mirroring the whole coverage process.
+ *
+ * Only north-up (or south-up) rasters are supported.
+ */
+class StreamingFootprintExtractor {
+
+    /** Strips are made of at least this number of rows, to limit the per-strip overhead */
+    private static final int MIN_STRIP_HEIGHT = 256;
+
+    private static final double DEFAULT_SIMPLIFIER_FACTOR = 2;
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private final FootprintExtractionProcess process;
+
+    private final GeoTiffReader reader;
+
+    private final Map<String, Object> params;
+
+    /**
+     * @param process the process to be run on each strip
+     * @param reader the reader of the GeoTIFF to be processed
+     * @param params the parsed footprint parameters. See {@link FootprintParameter#parseParams(Map)}
+     */
+    StreamingFootprintExtractor(FootprintExtractionProcess process, GeoTiffReader reader,
+            Map<String, Object> params) {
+        this.process = process;
+        this.reader = reader;
+        this.params = params;
+    }
+
+    /**
+     * Compute the footprint strip by strip.
+     *
+     * @return the precise footprint, followed by the simplified one when requested
+     * @throws IOException
+     */
+    List<Geometry> extract() throws IOException {
+        final GridEnvelope gridRange = reader.getOriginalGridRange();
+        final MathTransform gridToWorld = reader.getOriginalGridToWorld(PixelInCell.CELL_CORNER);
+        final CoordinateReferenceSystem crs = reader.getCoordinateReferenceSystem();
+        if (!(gridToWorld instanceof AffineTransform)) {
+            throw new IOException("Streaming extraction requires an affine grid to world transform");
+        }
+        final AffineTransform transform = (AffineTransform) gridToWorld;
+        if (transform.getShearX() != 0 || transform.getShearY() != 0) {
+            throw new IOException("Streaming extraction doesn't support rotated rasters");
+        }
+
+        final int minX = gridRange.getLow(0);
+        final int minY = gridRange.getLow(1);
+        final int width = gridRange.getSpan(0);
+        final int height = gridRange.getSpan(1);
+        final int stripHeight = getStripHeight();
+
+        final GridSnapper snapper = new GridSnapper(transform);
+        final double thresholdArea = (Double) params.get(FootprintParameter.Key.THRESHOLD_AREA)
+                * Math.abs(transform.getScaleX() * transform.getScaleY());
+
+        // Slices reaching the bottom edge of the previous strip, and their groups
+        List<Slice> frontier = new ArrayList<Slice>();
+        Set<Group> openGroups = new LinkedHashSet<Group>();
+        final List<Polygon> footprintPolygons = new ArrayList<Polygon>();
+
+        for (int y = minY; y < minY + height; y += stripHeight) {
+            // Overlap the next strip by one row, so that reader rounding can't leave gaps
+            final int rows = Math.min(stripHeight + 1, minY + height - y);
+            final boolean lastStrip = y + rows >= minY + height;
+            final GridEnvelope2D stripRange = new GridEnvelope2D(minX, y, width, rows);
+
+            // Index the previous frontier to look for the slices continuing in this strip
+            final STRtree frontierIndex = new STRtree();
+            for (Slice slice : frontier) {
+                frontierIndex.insert(slice.polygon.getEnvelopeInternal(), slice);
+            }
+
+            final List<Slice> newFrontier = new ArrayList<Slice>();
+            final Set<Group> candidates = new LinkedHashSet<Group>(openGroups);
+            for (Polygon polygon : extractStrip(new GridGeometry2D(stripRange,
+                    PixelInCell.CELL_CORNER, gridToWorld, crs, null))) {
+                // Snap to the raster grid so that adjacent strips share the same vertices
+                polygon.apply(snapper);
+                polygon.geometryChanged();
+
+                final int[] polygonRows = snapper.getRows(polygon.getEnvelopeInternal());
+                Group group = new Group(polygon);
+                if (polygonRows[0] <= y && !frontier.isEmpty()) {
+                    for (Object item : frontierIndex.query(polygon.getEnvelopeInternal())) {
+                        final Slice previous = (Slice) item;
+                        if (previous.polygon.intersects(polygon)) {
+                            group = Group.merge(previous.group.find(), group);
+                        }
+                    }
+                }
+                if (polygonRows[1] >= y + rows && !lastStrip) {
+                    newFrontier.add(new Slice(polygon, group));
+                }
+                candidates.add(group);
+            }
+
+            // Groups without slices on the new frontier are complete: emit them
+            openGroups = new LinkedHashSet<Group>();
+            for (Slice slice : newFrontier) {
+                slice.group = slice.group.find();
+                openGroups.add(slice.group);
+            }
+            final Set<Group> emitted = new HashSet<Group>();
+            for (Group candidate : candidates) {
+                final Group group = candidate.find();
+                if (!openGroups.contains(group) && emitted.add(group)) {
+                    close(group, thresholdArea, footprintPolygons);
+                }
+            }
+            frontier = newFrontier;
+        }
+
+        final List<Geometry> footprints = new ArrayList<Geometry>(2);
+        Geometry footprint = GEOMETRY_FACTORY.createMultiPolygon(footprintPolygons
+                .toArray(new Polygon[footprintPolygons.size()]));
+        footprint = postProcess(footprint);
+        footprints.add(footprint);
+
+        if ((Boolean) params.get(FootprintParameter.Key.COMPUTE_SIMPLIFIED_FOOTPRINT)) {
+            Double simplifierFactor = (Double) params.get(FootprintParameter.Key.SIMPLIFIER_FACTOR);
+            if (simplifierFactor == null) {
+                simplifierFactor = DEFAULT_SIMPLIFIER_FACTOR;
+            }
+            final double pixelSize = Math.max(Math.abs(transform.getScaleX()),
+                    Math.abs(transform.getScaleY()));
+            Geometry simplified = TopologyPreservingSimplifier.simplify(footprint, simplifierFactor
+                    * pixelSize);
+            footprints.add(postProcess(simplified));
+        }
+        return footprints;
+    }
+
+    /**
+     * Stitch the slices of a complete group together, dropping holes and polygons
+     * smaller than the threshold area, and add the result to the footprint polygons.
+     *
+     * @param group
+     * @param thresholdArea the threshold area, in world units
+     * @param footprintPolygons
+     */
+    private static void close(Group group, double thresholdArea, List<Polygon> footprintPolygons) {
+        final Geometry merged = group.slices.size() == 1 ? group.slices.get(0)
+                : CascadedPolygonUnion.union(group.slices);
+        group.slices.clear();
+        for (Polygon polygon : getPolygons(merged)) {
+            if (polygon.getArea() < thresholdArea) {
+                continue;
+            }
+            footprintPolygons.add(removeSmallHoles(polygon, thresholdArea));
+        }
+    }
+
+    /**
+     * Remove the holes smaller than the threshold area, as the vectorizer does.
+     *
+     * @param polygon
+     * @param thresholdArea
+     * @return
+     */
+    private static Polygon removeSmallHoles(Polygon polygon, double thresholdArea) {
+        final List<LinearRing> holes = new ArrayList<LinearRing>();
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            final LinearRing hole = (LinearRing) polygon.getInteriorRingN(i);
+            if (Math.abs(CGAlgorithms.signedArea(hole.getCoordinates())) >= thresholdArea) {
+                holes.add(hole);
+            }
+        }
+        if (holes.size() == polygon.getNumInteriorRing()) {
+            return polygon;
+        }
+        return GEOMETRY_FACTORY.createPolygon((LinearRing) polygon.getExteriorRing(),
+                holes.toArray(new LinearRing[holes.size()]));
+    }
+
+    /**
+     * Read the strip having the provided grid geometry and extract its polygons.
+     *
+     * @param stripGeometry
+     * @return
+     * @throws IOException
+     */
+    private List<Polygon> extractStrip(GridGeometry2D stripGeometry) throws IOException {
+        final ParameterValue<GridGeometry2D> gridGeometry = AbstractGridFormat.READ_GRIDGEOMETRY2D
+                .createValue();
+        gridGeometry.setValue(stripGeometry);
+        final ParameterValue<Boolean> useImageRead = AbstractGridFormat.USE_JAI_IMAGEREAD
+                .createValue();
+        useImageRead.setValue(true);
+
+        GridCoverage2D cov = null;
+        FeatureIterator<SimpleFeature> iter = null;
+        try {
+            cov = reader.read(new GeneralParameterValue[] { gridGeometry, useImageRead });
+            if (cov == null) {
+                return new ArrayList<Polygon>();
+            }
+
+            // Area filtering and simplification are postponed to the stitched polygons
+            SimpleFeatureCollection fc = process.execute(cov,
+                    (List<Range<Integer>>) params.get(FootprintParameter.Key.EXCLUSION_RANGES),
+                    0d, false, null,
+                    (Boolean) params.get(FootprintParameter.Key.REMOVE_COLLINEAR),
+                    (Boolean) params.get(FootprintParameter.Key.FORCE_VALID),
+                    (ImageLoadingType) params.get(FootprintParameter.Key.LOADING_TYPE), null);
+            iter = fc.features();
+            if (!iter.hasNext()) {
+                return new ArrayList<Polygon>();
+            }
+            return getPolygons((Geometry) iter.next().getDefaultGeometry());
+        } finally {
+            if (iter != null) {
+                iter.close();
+            }
+            if (cov != null) {
+                try {
+                    cov.dispose(true);
+                } catch (Throwable t) {
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply collinear vertices removal and validity forcing, as requested.
+     *
+     * @param geometry
+     * @return
+     */
+    private Geometry postProcess(Geometry geometry) {
+        Geometry result = geometry;
+        if ((Boolean) params.get(FootprintParameter.Key.REMOVE_COLLINEAR)) {
+            result = JTS.removeCollinearVertices(result);
+        }
+        if ((Boolean) params.get(FootprintParameter.Key.FORCE_VALID) && !result.isValid()) {
+            result = result.buffer(0);
+        }
+        return result;
+    }
+
+    /**
+     * A polygon extracted from a strip, belonging to a group of connected slices
+     */
+    private static class Slice {
+        final Polygon polygon;
+
+        Group group;
+
+        Slice(Polygon polygon, Group group) {
+            this.polygon = polygon;
+            this.group = group;
+        }
+    }
+
+    /**
+     * A set of connected slices, making up the same polygons once stitched.
+     * Groups are merged union-find style when a slice connects them.
+     */
+    private static class Group {
+        final List<Polygon> slices = new ArrayList<Polygon>();
+
+        Group parent;
+
+        Group(Polygon slice) {
+            slices.add(slice);
+        }
+
+        Group find() {
+            Group root = this;
+            while (root.parent != null) {
+                root = root.parent;
+            }
+            return root;
+        }
+
+        static Group merge(Group first, Group second) {
+            final Group firstRoot = first.find();
+            final Group secondRoot = second.find();
+            if (firstRoot == secondRoot) {
+                return firstRoot;
+            }
+            // Move the slices of the smaller group into the larger one
+            final Group larger = firstRoot.slices.size() >= secondRoot.slices.size() ? firstRoot
+                    : secondRoot;
+            final Group smaller = larger == firstRoot ? secondRoot : firstRoot;
+            larger.slices.addAll(smaller.slices);
+            smaller.slices.clear();
+            smaller.parent = larger;
+            return larger;
+        }
+    }
+
+    /**
+     * Snaps coordinates to the closest pixel corner of the raster grid, always
+     * going through the same original grid to world transform.
+     */
+    private static class GridSnapper implements CoordinateFilter {
+
+        private final AffineTransform gridToWorld;
+
+        private final AffineTransform worldToGrid;
+
+        GridSnapper(AffineTransform gridToWorld) throws IOException {
+            this.gridToWorld = gridToWorld;
+            try {
+                this.worldToGrid = gridToWorld.createInverse();
+            } catch (NoninvertibleTransformException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void filter(Coordinate coordinate) {
+            final Point2D point = new Point2D.Double(coordinate.x, coordinate.y);
+            worldToGrid.transform(point, point);
+            point.setLocation(Math.rint(point.getX()), Math.rint(point.getY()));
+            gridToWorld.transform(point, point);
+            coordinate.x = point.getX();
+            coordinate.y = point.getY();
+        }
+
+        /**
+         * Return the first and last pixel corner rows of the provided envelope.
+         *
+         * @param envelope
+         * @return
+         */
+        int[] getRows(Envelope envelope) {
+            final double scaleY = gridToWorld.getScaleY();
+            final double translateY = gridToWorld.getTranslateY();
+            final int first = (int) Math.rint((envelope.getMinY() - translateY) / scaleY);
+            final int second = (int) Math.rint((envelope.getMaxY() - translateY) / scaleY);
+            return new int[] { Math.min(first, second), Math.max(first, second) };
+        }
+    }
+
+    /**
+     * Return the strip height: the configured one or the tile height of the GeoTIFF.
+     *
+     * @return
+     * @throws IOException
+     */
+    private int getStripHeight() throws IOException {
+        int stripHeight = (Integer) params.get(FootprintParameter.Key.STRIP_HEIGHT);
+        if (stripHeight > 0) {
+            return stripHeight;
+        }
+        final ImageLayout layout = reader.getImageLayout();
+        final int tileHeight = layout != null ? layout.getTileHeight(null) : 0;
+        if (tileHeight <= 0) {
+            return MIN_STRIP_HEIGHT;
+        }
+        // Use a multiple of the tile height to avoid splitting tiles across strips
+        return ((MIN_STRIP_HEIGHT + tileHeight - 1) / tileHeight) * tileHeight;
+    }
+
+    /**
+     * Return the polygons composing the provided geometry.
+     *
+     * @param geometry
+     * @return
+     */
+    private static List<Polygon> getPolygons(Geometry geometry) {
+        final List<Polygon> polygons = new ArrayList<Polygon>();
+        if (geometry == null) {
+            return polygons;
+        }
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            final Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Polygon && !part.isEmpty()) {
+                polygons.add((Polygon) part);
+            }
+        }
+        return polygons;
+    }
+}
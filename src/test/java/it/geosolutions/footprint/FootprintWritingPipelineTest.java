@@ -0,0 +1,233 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.footprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import it.geosolutions.footprint.FootprintExtractionTool.FootprintProcessingInputBean;
+import it.geosolutions.footprint.FootprintExtractionTool.FootprintProcessingOutputBean;
+import it.geosolutions.footprint.FootprintExtractionTool.FootprintWriteRequest;
+import it.geosolutions.footprint.FootprintExtractionTool.WritingFormat;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Tests for the {@link FootprintWritingPipeline}.
+ */
+public class FootprintWritingPipelineTest {
+
+    private static final Geometry POINT = new GeometryFactory().createPoint(new Coordinate(0, 0));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A write request running the provided action instead of writing the geometry
+     */
+    private static class ActionRequest extends FootprintWriteRequest {
+
+        private final Runnable action;
+
+        ActionRequest(File outputFile, Runnable action) {
+            super(WritingFormat.WKB, POINT, outputFile, null);
+            this.action = action;
+        }
+
+        @Override
+        void write() throws IOException {
+            action.run();
+        }
+    }
+
+    /**
+     * A write request always failing with the provided exception
+     */
+    private static class FailingRequest extends FootprintWriteRequest {
+
+        private final Exception exception;
+
+        FailingRequest(File outputFile, Exception exception) {
+            super(WritingFormat.WKB, POINT, outputFile, null);
+            this.exception = exception;
+        }
+
+        @Override
+        void write() throws IOException {
+            if (exception instanceof IOException) {
+                throw (IOException) exception;
+            }
+            throw (RuntimeException) exception;
+        }
+    }
+
+    @Test
+    public void testFailuresReportedToTheRelatedOutput() throws Exception {
+        final FootprintWritingPipeline pipeline = new FootprintWritingPipeline(1, 1, 0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread caller = Thread.currentThread();
+        final List<Thread> failingThreads = new ArrayList<Thread>();
+
+        // Keep the only writer thread busy
+        final FootprintProcessingOutputBean blockedOutput = new FootprintProcessingOutputBean();
+        pipeline.submit(new ActionRequest(folder.newFile(), new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }), blockedOutput);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // Fill the queue with a failing request
+        final FootprintProcessingOutputBean queuedOutput = new FootprintProcessingOutputBean();
+        final IOException ioException = new IOException("queued");
+        pipeline.submit(new FailingRequest(folder.newFile(), ioException), queuedOutput);
+
+        // The queue is full: this request is run by the caller thread
+        final FootprintProcessingOutputBean callerOutput = new FootprintProcessingOutputBean();
+        final RuntimeException runtimeException = new IllegalStateException("caller");
+        pipeline.submit(new ActionRequest(folder.newFile(), new Runnable() {
+            @Override
+            public void run() {
+                failingThreads.add(Thread.currentThread());
+                throw runtimeException;
+            }
+        }), callerOutput);
+
+        release.countDown();
+        pipeline.close();
+
+        assertEquals(1, failingThreads.size());
+        assertSame(caller, failingThreads.get(0));
+        assertTrue(blockedOutput.getExceptions().isEmpty());
+        assertEquals(1, queuedOutput.getExceptions().size());
+        assertSame(ioException, queuedOutput.getExceptions().get(0));
+        assertEquals(1, callerOutput.getExceptions().size());
+        assertSame(runtimeException, callerOutput.getExceptions().get(0));
+    }
+
+    @Test
+    public void testCloseWaitsForAllWrites() throws Exception {
+        final FootprintWritingPipeline pipeline = new FootprintWritingPipeline(2, 2, 0);
+        final AtomicInteger written = new AtomicInteger();
+        final List<FootprintProcessingOutputBean> outputs = new ArrayList<FootprintProcessingOutputBean>();
+        for (int i = 0; i < 10; i++) {
+            FootprintProcessingOutputBean output = new FootprintProcessingOutputBean();
+            outputs.add(output);
+            pipeline.submit(new ActionRequest(folder.newFile(), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    written.incrementAndGet();
+                }
+            }), output);
+        }
+        pipeline.close();
+
+        assertEquals(10, written.get());
+        for (FootprintProcessingOutputBean output : outputs) {
+            assertTrue(output.getExceptions().isEmpty());
+        }
+    }
+
+    @Test
+    public void testPartialBatchSyncedOnClose() throws Exception {
+        final FootprintWritingPipeline pipeline = new FootprintWritingPipeline(1, 4, 10);
+
+        // A real output, synced without errors
+        final FootprintProcessingOutputBean syncedOutput = new FootprintProcessingOutputBean();
+        final File syncedFile = new File(folder.getRoot(), "synced.wkb");
+        pipeline.submit(new FootprintWriteRequest(WritingFormat.WKB, POINT, syncedFile, null),
+                syncedOutput);
+
+        // An output which is never created: only syncing it can fail
+        final FootprintProcessingOutputBean missingOutput = new FootprintProcessingOutputBean();
+        final File missingFile = new File(folder.getRoot(), "missing.wkb");
+        pipeline.submit(new ActionRequest(missingFile, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }), missingOutput);
+
+        // The batch of 10 is never filled: the 2 outputs get synced on close
+        pipeline.close();
+
+        assertTrue(syncedFile.exists());
+        assertTrue(syncedOutput.getExceptions().isEmpty());
+        assertEquals(1, missingOutput.getExceptions().size());
+        assertTrue(missingOutput.getExceptions().get(0) instanceof IOException);
+    }
+
+    @Test
+    public void testDuplicateOutputRejected() throws Exception {
+        final BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(8, 8, 48, 48);
+        } finally {
+            graphics.dispose();
+        }
+        final File tif = folder.newFile("a.tif");
+        final File tiff = folder.newFile("a.TIFF");
+        GeoTiffTestUtils.createGeoTiff(tif, image, 0, 64, 0, 64);
+        GeoTiffTestUtils.createGeoTiff(tiff, image, 0, 64, 0, 64);
+
+        final List<FootprintProcessingInputBean> inputBeans = new ArrayList<FootprintProcessingInputBean>();
+        for (File file : new File[] { tif, tiff }) {
+            FootprintProcessingInputBean inputBean = new FootprintProcessingInputBean();
+            inputBean.setInputFile(file);
+            inputBeans.add(inputBean);
+        }
+        final List<FootprintProcessingOutputBean> outputBeans = FootprintExtractionTool
+                .generateFootprints(inputBeans, null);
+
+        assertEquals(2, outputBeans.size());
+        assertTrue(outputBeans.get(0).getExceptions().isEmpty());
+        assertTrue(new File(folder.getRoot(), "a.wkb").exists());
+        assertEquals(1, outputBeans.get(1).getExceptions().size());
+        assertTrue(outputBeans.get(1).getExceptions().get(0).getMessage()
+                .contains("already produced"));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.footprint;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+/**
+ * Helpers to create GeoTIFF test data.
+ */
+class GeoTiffTestUtils {
+
+    /**
+     * Write the provided image as a WGS84 GeoTIFF covering the specified envelope.
+     *
+     * @param file
+     * @param image
+     * @param minX
+     * @param maxX
+     * @param minY
+     * @param maxY
+     * @throws IOException
+     */
+    static void createGeoTiff(File file, BufferedImage image, double minX, double maxX,
+            double minY, double maxY) throws IOException {
+        final ReferencedEnvelope envelope = new ReferencedEnvelope(minX, maxX, minY, maxY,
+                DefaultGeographicCRS.WGS84);
+        final GridCoverage2D coverage = new GridCoverageFactory().create("test", image, envelope);
+        final GeoTiffWriter writer = new GeoTiffWriter(file);
+        try {
+            writer.write(coverage, null);
+        } finally {
+            writer.dispose();
+            coverage.dispose(true);
+        }
+    }
+}
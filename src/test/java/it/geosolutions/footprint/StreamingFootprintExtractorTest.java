@@ -0,0 +1,223 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2014, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.footprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.process.raster.FootprintExtractionProcess;
+import org.geotools.process.raster.MarchingSquaresVectorizer.ImageLoadingType;
+import org.geotools.util.Range;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Checks that the streaming extraction returns the same footprints as the
+ * whole coverage extraction.
+ */
+public class StreamingFootprintExtractorTest {
+
+    private static final double TOLERANCE = 1.0e-9;
+
+    private static final int STRIP_HEIGHT = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPolygonSpanningSeveralStrips() throws Exception {
+        final BufferedImage image = createImage(200, 200);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillPolygon(new int[] { 20, 180, 170, 100, 60, 30 }, new int[] { 10, 30, 190,
+                    120, 185, 150 }, 6);
+            graphics.setColor(Color.BLACK);
+            graphics.fillRect(80, 50, 40, 30);
+        } finally {
+            graphics.dispose();
+        }
+
+        final List<Geometry> footprints = compare(image, false);
+        assertEquals(1, footprints.get(0).getNumGeometries());
+    }
+
+    @Test
+    public void testPolygonOverThresholdOnceStitched() throws Exception {
+        // 4 pixels wide: each slice is below the 100 pixels threshold, the bar isn't
+        final BufferedImage image = createImage(64, 100);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(30, 10, 4, 80);
+        } finally {
+            graphics.dispose();
+        }
+
+        final List<Geometry> footprints = compare(image, false);
+        assertEquals(1, footprints.get(0).getNumGeometries());
+    }
+
+    @Test
+    public void testMultiPolygon() throws Exception {
+        final BufferedImage image = createImage(200, 200);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillPolygon(new int[] { 10, 90, 60 }, new int[] { 10, 40, 180 }, 3);
+            graphics.fillOval(110, 20, 80, 160);
+            // A speckle below the threshold area, within a single strip
+            graphics.fillRect(100, 180, 3, 3);
+        } finally {
+            graphics.dispose();
+        }
+
+        final List<Geometry> footprints = compare(image, false);
+        assertEquals(2, footprints.get(0).getNumGeometries());
+    }
+
+    @Test
+    public void testHoles() throws Exception {
+        final BufferedImage image = createImage(128, 128);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(10, 10, 108, 108);
+            graphics.setColor(Color.BLACK);
+            // A hole below the threshold area, and one above it across a strip boundary
+            graphics.fillRect(30, 40, 3, 3);
+            graphics.fillRect(60, 42, 12, 12);
+        } finally {
+            graphics.dispose();
+        }
+
+        compare(image, false);
+    }
+
+    @Test
+    public void testSimplifiedFootprint() throws Exception {
+        final BufferedImage image = createImage(200, 200);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillOval(20, 10, 160, 180);
+            graphics.setColor(Color.BLACK);
+            graphics.fillOval(70, 60, 40, 50);
+        } finally {
+            graphics.dispose();
+        }
+
+        final List<Geometry> footprints = compare(image, true);
+        assertEquals(2, footprints.size());
+    }
+
+    private static BufferedImage createImage(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    /**
+     * Extract the footprints of the provided image, both on the whole coverage and
+     * in streaming mode, checking that they are the same.
+     *
+     * @return the streaming footprints
+     */
+    private List<Geometry> compare(BufferedImage image, boolean computeSimplified)
+            throws Exception {
+        // Use a pixel size which isn't exactly representable
+        final File file = folder.newFile("test.tif");
+        GeoTiffTestUtils.createGeoTiff(file, image, 10, 10 + image.getWidth() * 0.1, 40,
+                40 + image.getHeight() * 0.1);
+        final FootprintExtractionProcess process = new FootprintExtractionProcess();
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(FootprintParameter.Key.STREAMING, true);
+        params.put(FootprintParameter.Key.STRIP_HEIGHT, STRIP_HEIGHT);
+        params.put(FootprintParameter.Key.COMPUTE_SIMPLIFIED_FOOTPRINT, computeSimplified);
+        params = FootprintParameter.parseParams(params);
+
+        final List<Geometry> expected = new ArrayList<Geometry>();
+        GeoTiffReader reader = new GeoTiffReader(file);
+        GridCoverage2D cov = null;
+        FeatureIterator<SimpleFeature> iter = null;
+        try {
+            cov = reader.read(null);
+            SimpleFeatureCollection fc = process.execute(cov,
+                    (List<Range<Integer>>) params.get(FootprintParameter.Key.EXCLUSION_RANGES),
+                    (Double) params.get(FootprintParameter.Key.THRESHOLD_AREA), computeSimplified,
+                    (Double) params.get(FootprintParameter.Key.SIMPLIFIER_FACTOR),
+                    (Boolean) params.get(FootprintParameter.Key.REMOVE_COLLINEAR),
+                    (Boolean) params.get(FootprintParameter.Key.FORCE_VALID),
+                    (ImageLoadingType) params.get(FootprintParameter.Key.LOADING_TYPE), null);
+            iter = fc.features();
+            while (iter.hasNext()) {
+                expected.add((Geometry) iter.next().getDefaultGeometry());
+            }
+        } finally {
+            if (iter != null) {
+                iter.close();
+            }
+            if (cov != null) {
+                cov.dispose(true);
+            }
+            reader.dispose();
+        }
+
+        reader = new GeoTiffReader(file);
+        final List<Geometry> actual;
+        try {
+            actual = new StreamingFootprintExtractor(process, reader, params).extract();
+        } finally {
+            reader.dispose();
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final Geometry expectedFootprint = normalize(expected.get(i));
+            final Geometry actualFootprint = normalize(actual.get(i));
+            assertTrue("Footprint " + i + " differs: expected " + expectedFootprint + " but was "
+                    + actualFootprint, expectedFootprint.equalsExact(actualFootprint, TOLERANCE));
+        }
+        for (int i = 0; i < actual.get(0).getNumGeometries(); i++) {
+            assertTrue(actual.get(0).getGeometryN(i) instanceof Polygon);
+        }
+        return actual;
+    }
+
+    private static Geometry normalize(Geometry geometry) {
+        final Geometry normalized = geometry.union();
+        normalized.normalize();
+        return normalized;
+    }
+}